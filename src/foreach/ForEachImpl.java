@@ -70,17 +70,24 @@ public class ForEachImpl {
         //1. Map entries
         Consumer<Map.Entry<String, Integer>> action2 = System.out::println;
 
-        map2.entrySet().forEach(action2);
-
         //2. Map keys
         Consumer<String> actionOnKeys = System.out::println;
 
-        map2.keySet().forEach(actionOnKeys);
-
         //3. Map values
         Consumer<Integer> actionOnValues = System.out::println;
 
-        map2.values().forEach(actionOnValues);
+        walkMap(map2, action2, actionOnKeys, actionOnValues);
+    }
+
+    /**
+     * Walks the entries, then the keys, then the values of a map. Public
+     * so that stream.AllocationBudgets can measure it.
+     */
+    public static <K, V> void walkMap(Map<K, V> map, Consumer<? super Map.Entry<K, V>> onEntry,
+                                      Consumer<? super K> onKey, Consumer<? super V> onValue) {
+        map.entrySet().forEach(onEntry);
+        map.keySet().forEach(onKey);
+        map.values().forEach(onValue);
     }
 
 
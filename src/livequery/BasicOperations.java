@@ -0,0 +1,61 @@
+package livequery;
+
+import java.util.Set;
+
+/**
+ * The counting and matching examples of stream.BasicOperations, but
+ * registered once as live queries instead of re-run as Streams. After
+ * registration each add or remove updates the answers directly, and
+ * subscribers hear about it whenever an answer changes.
+ */
+public class BasicOperations {
+
+    public static void main(String arg[]) {
+        ObservableCollection<String> stringCollection = new ObservableCollection<>();
+        stringCollection.add("ddd2");
+        stringCollection.add("aaa2");
+        stringCollection.add("bbb1");
+        stringCollection.add("aaa1");
+        stringCollection.add("bbb3");
+        stringCollection.add("ccc");
+        stringCollection.add("bbb2");
+        stringCollection.add("ddd1");
+
+        String separator = "*****************************";
+
+        LiveQuery<Long> startsWithB = stringCollection
+                .filter((s) -> s.startsWith("b"))
+                .count();
+
+        LiveQuery<Boolean> anyStartsWithA = stringCollection.anyMatch((s) -> s.startsWith("a"));
+        LiveQuery<Boolean> noneStartsWithZ = stringCollection.noneMatch((s) -> s.startsWith("z"));
+        LiveQuery<Set<String>> distinctFourLetters = stringCollection
+                .filter((s) -> s.length() == 4)
+                .distinct();
+
+        System.out.println(startsWithB);         // 3
+        System.out.println(anyStartsWithA);      // true
+        System.out.println(noneStartsWithZ);     // true
+        System.out.println(separator);
+
+        startsWithB.subscribe(n -> System.out.println("starts with b: " + n));
+        anyStartsWithA.subscribe(b -> System.out.println("any starts with a: " + b));
+        noneStartsWithZ.subscribe(b -> System.out.println("none starts with z: " + b));
+        distinctFourLetters.subscribe(s -> System.out.println("distinct: " + s));
+
+        stringCollection.add("bbb4");     // starts with b: 4, distinct gains bbb4
+        stringCollection.remove("aaa1");  // distinct only: aaa2 still starts with a
+        stringCollection.remove("aaa2");  // any starts with a: false, distinct loses aaa2
+        stringCollection.add("zzz");      // none starts with z: false
+        stringCollection.add("ddd1");     // nothing: a second copy changes no answer
+        System.out.println(separator);
+
+        stringCollection.removeIf((s) -> s.startsWith("b"));
+        System.out.println(startsWithB);         // 0
+        System.out.println(separator);
+
+        startsWithB.close();
+        stringCollection.add("bbb5");
+        System.out.println(startsWithB);         // still 0, no longer following
+    }
+}
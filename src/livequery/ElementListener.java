@@ -0,0 +1,13 @@
+package livequery;
+
+/**
+ * Receives the individual additions and removals of a LiveSource.
+ * Live queries are built from these deltas instead of rescanning the
+ * whole collection every time they need an answer.
+ */
+public interface ElementListener<E> {
+
+    void added(E element);
+
+    void removed(E element);
+}
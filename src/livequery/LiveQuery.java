@@ -0,0 +1,70 @@
+package livequery;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The result of a query registered on a LiveSource. The query keeps
+ * its own small piece of state (a counter, a multiset) and adjusts it
+ * by one delta per mutation of the source, so get() is always current
+ * without ever rescanning the source.
+ */
+public final class LiveQuery<R> {
+
+    private final Supplier<R> result;
+    private final List<Consumer<? super R>> subscribers = new CopyOnWriteArrayList<>();
+    private LiveSource.Registration registration;
+
+    LiveQuery(Supplier<R> result) {
+        this.result = result;
+    }
+
+    void attach(LiveSource.Registration registration) {
+        this.registration = registration;
+    }
+
+    public R get() {
+        return result.get();
+    }
+
+    /**
+     * The subscriber is called with the new result every time it
+     * changes. Mutations that leave the result as it was are not
+     * reported.
+     */
+    public void subscribe(Consumer<? super R> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Consumer<? super R> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Stops following the source. The result is frozen at its last
+     * value.
+     */
+    public void close() {
+        if (registration != null) {
+            registration.cancel();
+            registration = null;
+        }
+    }
+
+    void changed() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        R current = result.get();
+        for (Consumer<? super R> subscriber : subscribers) {
+            subscriber.accept(current);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(get());
+    }
+}
@@ -0,0 +1,60 @@
+package livequery;
+
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Anything that can report its contents as a sequence of additions and
+ * removals. The query methods are default methods, so every source
+ * (the ObservableCollection itself, or a filtered view of it) gets the
+ * same live count/match/distinct vocabulary that Stream offers as
+ * terminal operations.
+ */
+public interface LiveSource<E> {
+
+    /**
+     * Starts delivering changes to the listener. The elements already
+     * present are replayed as additions first, so a listener always
+     * sees the full contents; this is the only full scan a query pays.
+     */
+    Registration register(ElementListener<? super E> listener);
+
+    @FunctionalInterface
+    interface Registration {
+        void cancel();
+    }
+
+    /**
+     * A view that forwards only the changes whose element matches the
+     * predicate. It stores nothing, so chaining filters costs one
+     * predicate test per change.
+     */
+    default LiveSource<E> filter(Predicate<? super E> predicate) {
+        return new Queries.FilteredSource<>(this, predicate);
+    }
+
+    default LiveQuery<Long> count() {
+        return Queries.count(this);
+    }
+
+    default LiveQuery<Boolean> anyMatch(Predicate<? super E> predicate) {
+        return Queries.match(this, predicate, Queries.MatchKind.ANY);
+    }
+
+    default LiveQuery<Boolean> allMatch(Predicate<? super E> predicate) {
+        return Queries.match(this, predicate, Queries.MatchKind.ALL);
+    }
+
+    default LiveQuery<Boolean> noneMatch(Predicate<? super E> predicate) {
+        return Queries.match(this, predicate, Queries.MatchKind.NONE);
+    }
+
+    /**
+     * The distinct elements, as a read-only Set view that is kept up to
+     * date. Subscribers are only notified when an element appears for
+     * the first time or its last copy is removed.
+     */
+    default LiveQuery<Set<E>> distinct() {
+        return Queries.distinct(this);
+    }
+}
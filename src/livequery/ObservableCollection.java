@@ -0,0 +1,139 @@
+package livequery;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+/**
+ * An ordinary Collection (backed by an ArrayList) that reports every
+ * add and remove to its registered listeners. Bulk operations are
+ * reported element by element as well. The bulk removals (removeIf,
+ * removeAll, retainAll, clear) compact the list in a single pass
+ * instead of removing through the iterator, which would shift the
+ * tail once per removed element.
+ *
+ * Like ArrayList it is not thread-safe; listeners run synchronously on
+ * the mutating thread.
+ */
+public class ObservableCollection<E> extends AbstractCollection<E> implements LiveSource<E> {
+
+    private final List<E> elements = new ArrayList<>();
+    private final List<ElementListener<? super E>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Registration register(ElementListener<? super E> listener) {
+        for (E element : elements) {
+            listener.added(element);
+        }
+        listeners.add(listener);
+        return () -> listeners.remove(listener);
+    }
+
+    @Override
+    public boolean add(E element) {
+        elements.add(element);
+        for (ElementListener<? super E> listener : listeners) {
+            listener.added(element);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        int index = elements.indexOf(o);
+        if (index < 0) {
+            return false;
+        }
+        fireRemoved(elements.remove(index));
+        return true;
+    }
+
+    /**
+     * Keeps the survivors in place and reports the dropped elements
+     * once the list is consistent again, so listeners never see it
+     * half compacted.
+     */
+    @Override
+    public boolean removeIf(Predicate<? super E> filter) {
+        Objects.requireNonNull(filter);
+        List<E> dropped = new ArrayList<>();
+        int kept = 0;
+        for (int i = 0; i < elements.size(); i++) {
+            E element = elements.get(i);
+            if (filter.test(element)) {
+                dropped.add(element);
+            } else {
+                elements.set(kept++, element);
+            }
+        }
+        if (dropped.isEmpty()) {
+            return false;
+        }
+        elements.subList(kept, elements.size()).clear();
+        for (E element : dropped) {
+            fireRemoved(element);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        return removeIf(c::contains);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        return removeIf(e -> !c.contains(e));
+    }
+
+    @Override
+    public void clear() {
+        List<E> dropped = new ArrayList<>(elements);
+        elements.clear();
+        for (E element : dropped) {
+            fireRemoved(element);
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<E> it = elements.iterator();
+        return new Iterator<E>() {
+            E last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return last = it.next();
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+                fireRemoved(last);
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    private void fireRemoved(E element) {
+        for (ElementListener<? super E> listener : listeners) {
+            listener.removed(element);
+        }
+    }
+}
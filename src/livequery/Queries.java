@@ -0,0 +1,145 @@
+package livequery;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The incremental state behind each live query. Each one is an
+ * ElementListener that updates its state in O(1) per added or removed
+ * element and tells its LiveQuery when the visible result moved.
+ */
+final class Queries {
+
+    private Queries() {
+    }
+
+    static final class FilteredSource<E> implements LiveSource<E> {
+        private final LiveSource<E> source;
+        private final Predicate<? super E> predicate;
+
+        FilteredSource(LiveSource<E> source, Predicate<? super E> predicate) {
+            this.source = source;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public Registration register(ElementListener<? super E> listener) {
+            return source.register(new ElementListener<E>() {
+                @Override
+                public void added(E element) {
+                    if (predicate.test(element)) {
+                        listener.added(element);
+                    }
+                }
+
+                @Override
+                public void removed(E element) {
+                    if (predicate.test(element)) {
+                        listener.removed(element);
+                    }
+                }
+            });
+        }
+    }
+
+    static <E> LiveQuery<Long> count(LiveSource<E> source) {
+        Count<E> count = new Count<>();
+        count.query.attach(source.register(count));
+        return count.query;
+    }
+
+    private static final class Count<E> implements ElementListener<E> {
+        final LiveQuery<Long> query = new LiveQuery<>(() -> this.n);
+        long n;
+
+        @Override
+        public void added(E element) {
+            n++;
+            query.changed();
+        }
+
+        @Override
+        public void removed(E element) {
+            n--;
+            query.changed();
+        }
+    }
+
+    enum MatchKind {
+        ANY, ALL, NONE
+    }
+
+    /**
+     * All three matches reduce to counting: anyMatch and noneMatch
+     * count the matching elements, allMatch counts the ones that do
+     * not match. Only a change of the boolean is published.
+     */
+    static <E> LiveQuery<Boolean> match(LiveSource<E> source, Predicate<? super E> predicate, MatchKind kind) {
+        Match<E> match = new Match<>(kind == MatchKind.ALL ? predicate.negate() : predicate, kind);
+        match.query.attach(source.register(match));
+        return match.query;
+    }
+
+    private static final class Match<E> implements ElementListener<E> {
+        final Predicate<? super E> counted;
+        final MatchKind kind;
+        final LiveQuery<Boolean> query = new LiveQuery<>(this::result);
+        long n;
+
+        Match(Predicate<? super E> counted, MatchKind kind) {
+            this.counted = counted;
+            this.kind = kind;
+        }
+
+        private boolean result() {
+            return kind == MatchKind.ANY ? n > 0 : n == 0;
+        }
+
+        @Override
+        public void added(E element) {
+            if (counted.test(element) && ++n == 1) {
+                query.changed();
+            }
+        }
+
+        @Override
+        public void removed(E element) {
+            if (counted.test(element) && --n == 0) {
+                query.changed();
+            }
+        }
+    }
+
+    static <E> LiveQuery<Set<E>> distinct(LiveSource<E> source) {
+        Distinct<E> distinct = new Distinct<>();
+        distinct.query.attach(source.register(distinct));
+        return distinct.query;
+    }
+
+    /**
+     * A multiset: each distinct element maps to the number of copies
+     * currently in the source.
+     */
+    private static final class Distinct<E> implements ElementListener<E> {
+        final Map<E, Integer> copies = new HashMap<>();
+        final Set<E> view = Collections.unmodifiableSet(copies.keySet());
+        final LiveQuery<Set<E>> query = new LiveQuery<>(() -> view);
+
+        @Override
+        public void added(E element) {
+            if (copies.merge(element, 1, Integer::sum) == 1) {
+                query.changed();
+            }
+        }
+
+        @Override
+        public void removed(E element) {
+            if (copies.computeIfPresent(element, (e, n) -> n == 1 ? null : n - 1) == null) {
+                query.changed();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * The filter/map/count examples of stream.BasicOperations, run once
+ * through a Stream and once through a compiled Pipeline, after the
+ * Stream call sites have been made megamorphic by a handful of other
+ * pipelines. The Stream version pays for that in every pipeline; the
+ * compiled one does not.
+ */
+public class BasicOperations {
+
+    public static void main(String arg[]) {
+        List<String> stringCollection = new ArrayList<>();
+        stringCollection.add("ddd2");
+        stringCollection.add("aaa2");
+        stringCollection.add("bbb1");
+        stringCollection.add("aaa1");
+        stringCollection.add("bbb3");
+        stringCollection.add("ccc");
+        stringCollection.add("bbb2");
+        stringCollection.add("ddd1");
+
+        String separator = "*****************************";
+
+        Pipeline<String, String> upperB = Pipeline.<String>start()
+                .filter((s) -> s.startsWith("b"))
+                .map(String::toUpperCase);
+
+        System.out.println(upperB.count(stringCollection));     // 3
+        System.out.println(upperB.toList(stringCollection));    // [BBB1, BBB3, BBB2]
+        upperB.forEach(stringCollection, System.out::println);
+        System.out.println(separator);
+
+/**
+ * The cache is keyed by shape: the same lambda expression capturing a
+ * different prefix is the same lambda class, so it reuses the loop
+ * compiled for the first one.
+ */
+        for (String prefix : new String[]{"a", "b", "c", "d"}) {
+            long n = Pipeline.<String>start()
+                    .filter(startsWith(prefix))
+                    .count(stringCollection);
+            System.out.println(prefix + ": " + n);
+        }
+        System.out.println("compiled shapes: " + PipelineCompiler.compiledShapes()
+                + ", uninlined: " + PipelineCompiler.fallbackShapes()
+                + ", uncached runs: " + PipelineCompiler.uncachedRuns());
+        System.out.println(separator);
+
+        int max = 1000000;
+        List<String> values = new ArrayList<>(max);
+        for (int i = 0; i < max; i++) {
+            values.add(UUID.randomUUID().toString());
+        }
+
+        // Pollute the java.util.stream call sites with several lambda classes.
+        for (int round = 0; round < 5; round++) {
+            values.stream().filter(s -> s.charAt(0) == 'a').map(String::length).count();
+            values.stream().filter(s -> s.endsWith("f")).map(String::trim).count();
+            values.stream().filter(s -> s.indexOf('-') > 0).map(s -> s.substring(1)).count();
+            values.stream().filter(s -> !s.isEmpty()).map(String::hashCode).count();
+        }
+
+        Pipeline<String, Integer> compiled = Pipeline.<String>start()
+                .filter(s -> s.charAt(8) == '-')
+                .map(s -> s.charAt(0))
+                .filter(c -> c < 'a')
+                .map(c -> c - '0');
+
+        for (int round = 0; round < 5; round++) {
+            long t0 = System.nanoTime();
+            long streamed = values.stream()
+                    .filter(s -> s.charAt(8) == '-')
+                    .map(s -> s.charAt(0))
+                    .filter(c -> c < 'a')
+                    .map(c -> c - '0')
+                    .count();
+            long t1 = System.nanoTime();
+            long viaPipeline = compiled.count(values);
+            long t2 = System.nanoTime();
+
+            System.out.println(String.format("stream: %d in %d ms, compiled pipeline: %d in %d ms",
+                    streamed, TimeUnit.NANOSECONDS.toMillis(t1 - t0),
+                    viaPipeline, TimeUnit.NANOSECONDS.toMillis(t2 - t1)));
+        }
+        System.out.println(separator);
+    }
+
+    static Predicate<String> startsWith(String prefix) {
+        return (s) -> s.startsWith(prefix);
+    }
+}
@@ -0,0 +1,98 @@
+package pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Every Stream pipeline runs through the same few call sites inside
+ * java.util.stream: the one that calls Predicate.test for filter(),
+ * the one that calls Function.apply for map(), and so on. Once those
+ * sites have seen more than two lambda classes they are megamorphic,
+ * and the JIT stops inlining lambdas there for every pipeline in the
+ * application, including the hot one.
+ *
+ * A Pipeline describes the same kind of chain (filter, map, then a
+ * terminal) but is compiled per shape into its own loop class, whose
+ * call sites only ever see this pipeline's lambdas. See
+ * PipelineCompiler for how. Descriptions are immutable and can be
+ * built once and run against many sources:
+ *
+ *     Pipeline<String, String> upperB = Pipeline.<String>start()
+ *             .filter(s -> s.startsWith("b"))
+ *             .map(String::toUpperCase);
+ *     long n = upperB.count(stringCollection);
+ *
+ * Requires Java 16 or later for hidden classes with class data.
+ */
+public final class Pipeline<S, T> {
+
+    private final List<PipelineCompiler.Kind> kinds;
+    private final List<Object> stages;
+
+    private Pipeline(List<PipelineCompiler.Kind> kinds, List<Object> stages) {
+        this.kinds = kinds;
+        this.stages = stages;
+    }
+
+    public static <S> Pipeline<S, S> start() {
+        return new Pipeline<>(Collections.emptyList(), Collections.emptyList());
+    }
+
+    public Pipeline<S, T> filter(Predicate<? super T> predicate) {
+        return append(PipelineCompiler.Kind.FILTER, Objects.requireNonNull(predicate));
+    }
+
+    public <R> Pipeline<S, R> map(Function<? super T, ? extends R> mapper) {
+        return append(PipelineCompiler.Kind.MAP, Objects.requireNonNull(mapper));
+    }
+
+    public long count(Iterable<? extends S> source) {
+        return run(source, PipelineCompiler.Kind.COUNT, null);
+    }
+
+    public void forEach(Iterable<? extends S> source, Consumer<? super T> action) {
+        run(source, PipelineCompiler.Kind.FOR_EACH, Objects.requireNonNull(action));
+    }
+
+    public List<T> toList(Iterable<? extends S> source) {
+        List<T> result = new ArrayList<>();
+        forEach(source, result::add);
+        return result;
+    }
+
+    private <R> Pipeline<S, R> append(PipelineCompiler.Kind kind, Object stage) {
+        List<PipelineCompiler.Kind> k = new ArrayList<>(kinds);
+        k.add(kind);
+        List<Object> s = new ArrayList<>(stages);
+        s.add(stage);
+        return new Pipeline<>(Collections.unmodifiableList(k), Collections.unmodifiableList(s));
+    }
+
+    private long run(Iterable<? extends S> source, PipelineCompiler.Kind terminal, Object action) {
+        Objects.requireNonNull(source);
+        List<PipelineCompiler.Kind> k = new ArrayList<>(kinds);
+        k.add(terminal);
+        Object[] s = stages.toArray(new Object[stages.size() + 1]);
+        s[stages.size()] = action;
+
+        PipelineCompiler.Loop loop = PipelineCompiler.loopFor(source.getClass(), k, s);
+        try {
+            return loop.run(s, source);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Pipeline" + kinds + " " + Arrays.toString(stages.toArray());
+    }
+}
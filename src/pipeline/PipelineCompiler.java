@@ -0,0 +1,290 @@
+package pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Turns a Pipeline description into a Loop and caches it by shape.
+ *
+ * The shape is the source class plus, for every stage, its kind and the
+ * class of its lambda. Two pipelines built from the same lambda
+ * expressions share a shape even when they capture different values,
+ * because the lambda instances are not baked in: they are passed to the
+ * loop on every run, in the stages array. What is baked in is their
+ * class. The body casts every stage to its exact (final) lambda class
+ * before calling it, so the JIT knows the receiver type and can inline
+ * the call without relying on a type profile at all.
+ */
+final class PipelineCompiler {
+
+    private PipelineCompiler() {
+    }
+
+    interface Loop {
+        long run(Object[] stages, Iterable<?> source) throws Throwable;
+    }
+
+    enum Kind {
+        FILTER, MAP, FOR_EACH, COUNT
+    }
+
+    static final class Shape {
+        final Class<?> source;
+        final Kind[] kinds;
+        final Class<?>[] classes;
+        final int hash;
+
+        Shape(Class<?> source, Kind[] kinds, Class<?>[] classes) {
+            this.source = source;
+            this.kinds = kinds;
+            this.classes = classes;
+            this.hash = 31 * (31 * source.hashCode() + Arrays.hashCode(kinds)) + Arrays.hashCode(classes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Shape)) {
+                return false;
+            }
+            Shape other = (Shape) o;
+            return source == other.source
+                    && Arrays.equals(kinds, other.kinds)
+                    && Arrays.equals(classes, other.classes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return source.getSimpleName() + Arrays.toString(kinds);
+        }
+    }
+
+    /**
+     * Each shape's loop is cached on one of the shape's own classes, the
+     * one with the deepest class loader, so the cache never outlives the
+     * code it was compiled for. Every other class in the shape comes
+     * from that loader or one of its parents, so the entry keeps nothing
+     * alive that would not outlive its owner anyway.
+     */
+    private static final ClassValue<Map<Shape, Loop>> CACHE = new ClassValue<Map<Shape, Loop>>() {
+        @Override
+        protected Map<Shape, Loop> computeValue(Class<?> owner) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    private static final AtomicInteger COMPILED = new AtomicInteger();
+    private static final AtomicInteger FALLBACKS = new AtomicInteger();
+    private static final AtomicInteger UNCACHED = new AtomicInteger();
+    private static final System.Logger LOG = System.getLogger(PipelineCompiler.class.getName());
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle PREDICATE_TEST;
+    private static final MethodHandle FUNCTION_APPLY;
+    private static final MethodHandle CONSUMER_ACCEPT;
+    private static final MethodHandle STAGE_AT = MethodHandles.arrayElementGetter(Object[].class);
+    private static final MethodType BODY_TYPE = MethodType.methodType(int.class, Object[].class, Object.class);
+    private static final byte[] TEMPLATE = templateBytes();
+
+    static {
+        try {
+            PREDICATE_TEST = LOOKUP.findVirtual(Predicate.class, "test",
+                    MethodType.methodType(boolean.class, Object.class));
+            FUNCTION_APPLY = LOOKUP.findVirtual(Function.class, "apply",
+                    MethodType.methodType(Object.class, Object.class));
+            CONSUMER_ACCEPT = LOOKUP.findVirtual(Consumer.class, "accept",
+                    MethodType.methodType(void.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Shapes compiled so far, including ones whose classes have since been unloaded. */
+    static int compiledShapes() {
+        return COMPILED.get();
+    }
+
+    /** Shapes that could not get a hidden loop class and run the non-inlined loop instead. */
+    static int fallbackShapes() {
+        return FALLBACKS.get();
+    }
+
+    /** Runs of shapes that could not be cached and were interpreted instead. */
+    static int uncachedRuns() {
+        return UNCACHED.get();
+    }
+
+    static Loop loopFor(Class<?> source, List<Kind> kinds, Object[] stages) {
+        Class<?>[] classes = new Class<?>[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            classes[i] = stages[i] == null ? Object.class : stages[i].getClass();
+        }
+        Shape shape = new Shape(source, kinds.toArray(new Kind[0]), classes);
+        Class<?> owner = owner(shape);
+        if (owner == null) {
+            UNCACHED.incrementAndGet();
+            return interpreted(shape.kinds);
+        }
+        return CACHE.get(owner).computeIfAbsent(shape, PipelineCompiler::compile);
+    }
+
+    /**
+     * The class of the shape whose loader every other class's loader is
+     * an ancestor of (or equal to). Null if the loaders are unrelated:
+     * caching on any one of them could keep another one alive, so such
+     * shapes are not cached, and not compiled either: that would define
+     * a new hidden class on every run. They are interpreted instead.
+     */
+    private static Class<?> owner(Shape shape) {
+        Class<?> owner = shape.source;
+        for (Class<?> c : shape.classes) {
+            if (isAncestor(owner.getClassLoader(), c.getClassLoader())) {
+                owner = c;
+            } else if (!isAncestor(c.getClassLoader(), owner.getClassLoader())) {
+                return null;
+            }
+        }
+        return owner;
+    }
+
+    /** True if ancestor is loader itself or one of its parents (null is the boot loader). */
+    private static boolean isAncestor(ClassLoader ancestor, ClassLoader loader) {
+        if (ancestor == null) {
+            return true;
+        }
+        for (ClassLoader l = loader; l != null; l = l.getParent()) {
+            if (l == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Loop compile(Shape shape) {
+        MethodHandle body = body(shape);
+        COMPILED.incrementAndGet();
+        if (TEMPLATE != null) {
+            try {
+                MethodHandles.Lookup hidden = LOOKUP.defineHiddenClassWithClassData(TEMPLATE, body, true);
+                return (Loop) hidden.lookupClass().getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | IllegalArgumentException e) {
+                LOG.log(System.Logger.Level.WARNING, "no hidden loop class for " + shape + ", running it uninlined", e);
+            }
+        } else {
+            LOG.log(System.Logger.Level.WARNING, "PipelineTemplate.class not found, running " + shape + " uninlined");
+        }
+        FALLBACKS.incrementAndGet();
+        // Still monomorphic per call, but BODY is not a constant here, so
+        // the chain is invoked rather than inlined into the loop.
+        return (stages, source) -> {
+            long n = 0L;
+            for (Object element : source) {
+                n += (int) body.invokeExact(stages, element);
+            }
+            return n;
+        };
+    }
+
+    /**
+     * Walks the stages of every element with plain interface calls. It
+     * costs nothing to build, but its call sites are shared by every
+     * uncached shape, so the lambdas are not inlined.
+     */
+    @SuppressWarnings("unchecked")
+    private static Loop interpreted(Kind[] kinds) {
+        int last = kinds.length - 1;
+        return (stages, source) -> {
+            long n = 0L;
+            elements:
+            for (Object element : source) {
+                Object value = element;
+                for (int i = 0; i < last; i++) {
+                    if (kinds[i] == Kind.FILTER) {
+                        if (!((Predicate<Object>) stages[i]).test(value)) {
+                            continue elements;
+                        }
+                    } else {
+                        value = ((Function<Object, Object>) stages[i]).apply(value);
+                    }
+                }
+                if (kinds[last] == Kind.FOR_EACH) {
+                    ((Consumer<Object>) stages[last]).accept(value);
+                }
+                n++;
+            }
+            return n;
+        };
+    }
+
+    /**
+     * Builds (Object[] stages, Object element) -> int from the terminal
+     * backwards: each stage wraps the handle of everything after it.
+     */
+    private static MethodHandle body(Shape shape) {
+        int last = shape.kinds.length - 1;
+        MethodHandle next;
+        switch (shape.kinds[last]) {
+            case FOR_EACH:
+                next = MethodHandles.filterReturnValue(call(CONSUMER_ACCEPT, last, shape.classes[last]),
+                        MethodHandles.constant(int.class, 1));
+                break;
+            case COUNT:
+                next = MethodHandles.dropArguments(MethodHandles.constant(int.class, 1), 0, Object[].class, Object.class);
+                break;
+            default:
+                throw new IllegalArgumentException("not a terminal: " + shape.kinds[last]);
+        }
+        MethodHandle reject = MethodHandles.dropArguments(MethodHandles.constant(int.class, 0), 0,
+                Object[].class, Object.class);
+
+        for (int i = last - 1; i >= 0; i--) {
+            switch (shape.kinds[i]) {
+                case FILTER:
+                    next = MethodHandles.guardWithTest(call(PREDICATE_TEST, i, shape.classes[i]), next, reject);
+                    break;
+                case MAP:
+                    // (mapped, stages, element) -> next(stages, mapped), then fold apply() in front
+                    MethodHandle withMapped = MethodHandles.permuteArguments(next,
+                            MethodType.methodType(int.class, Object.class, Object[].class, Object.class), 1, 0);
+                    next = MethodHandles.foldArguments(withMapped, call(FUNCTION_APPLY, i, shape.classes[i]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("not an intermediate stage: " + shape.kinds[i]);
+            }
+        }
+        return next.asType(BODY_TYPE);
+    }
+
+    /**
+     * (Object[] stages, Object element) -> stages[index].method(element),
+     * with stages[index] cast to its exact class first.
+     */
+    private static MethodHandle call(MethodHandle method, int index, Class<?> stageClass) {
+        MethodHandle exact = method.asType(method.type().changeParameterType(0, stageClass));
+        MethodHandle stage = MethodHandles.insertArguments(STAGE_AT, 1, index)
+                .asType(MethodType.methodType(stageClass, Object[].class));
+        return MethodHandles.filterArguments(exact, 0, stage);
+    }
+
+    private static byte[] templateBytes() {
+        try (InputStream in = PipelineTemplate.class.getResourceAsStream("PipelineTemplate.class")) {
+            return in == null ? null : in.readAllBytes();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package pipeline;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Never used directly. PipelineCompiler defines a hidden copy of this
+ * class for every pipeline shape, handing it that shape's loop body as
+ * class data. In each copy BODY is a static final constant, so the JIT
+ * inlines the whole chain of stages into the loop, and each copy's
+ * loop has its own profile instead of one shared by every pipeline.
+ */
+final class PipelineTemplate implements PipelineCompiler.Loop {
+
+    /** (Object[] stages, Object element) -> 1 if the element reached the terminal, else 0. */
+    private static final MethodHandle BODY = body();
+
+    private static MethodHandle body() {
+        try {
+            return MethodHandles.classData(MethodHandles.lookup(), ConstantDescs.DEFAULT_NAME, MethodHandle.class);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public long run(Object[] stages, Iterable<?> source) throws Throwable {
+        long n = 0L;
+        for (Object element : source) {
+            n += (int) BODY.invokeExact(stages, element);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,134 @@
+package reactive;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The stream.BasicOperations examples again, but pushed through a
+ * FlowPipeline instead of pulled through a Stream. Terminal operations
+ * return a CompletableFuture because the result is only known once the
+ * publisher signals completion.
+ */
+public class BasicOperations {
+
+    public static void main(String arg[]) throws Exception {
+        List<String> stringCollection = Arrays.asList(
+                "ddd2", "aaa2", "bbb1", "aaa1", "bbb3", "ccc", "bbb2", "ddd1");
+
+        String separator = "*****************************";
+
+/**
+ * Built from an Iterable the pipeline can be run any number of times;
+ * every terminal operation subscribes a fresh chain of stages.
+ */
+        FlowPipeline<String> strings = FlowPipeline.fromIterable(stringCollection);
+
+        strings.filter((s) -> s.startsWith("a"))
+                .forEach(System.out::println)
+                .join();
+
+        System.out.println(strings.filter((s) -> s.startsWith("b")).count().join());
+        System.out.println(separator);
+
+        Optional<String> reduced = strings
+                .map(String::toUpperCase)
+                .reduce((s1, s2) -> s1 + "," + s2)
+                .join();
+
+        reduced.ifPresent(System.out::println);
+        System.out.println(separator);
+
+        List<Integer> listOfAllIntegers = FlowPipeline
+                .fromIterable(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(4, 5), Arrays.asList(6, 7, 8)))
+                .flatMap(List::stream)
+                .collect(Collectors.toList())
+                .join();
+
+        System.out.println(listOfAllIntegers);
+        System.out.println(separator);
+
+        Map<Character, List<String>> byFirstLetter = strings
+                .distinct()
+                .groupBy(s -> s.charAt(0))
+                .join();
+
+        System.out.println(byFirstLetter);
+        System.out.println(separator);
+
+/**
+ * limit() and skip() work on an infinite source just like they do on
+ * Stream.iterate: the source only produces what is asked for, and
+ * limit() cancels it once it has enough.
+ */
+        List<Integer> evenNumbers = FlowPipeline
+                .fromStream(Stream.iterate(0, n -> n + 2))
+                .skip(5)
+                .limit(10)
+                .collect(Collectors.toList())
+                .join();
+
+        System.out.println(evenNumbers);
+        System.out.println(separator);
+
+/**
+ * A live feed with a slow consumer. SubmissionPublisher.submit blocks
+ * once its 8-slot buffer for the subscriber is full, and the async
+ * stage only asks for 16 elements at a time, so the producer is held
+ * back to the pace of the consumer (about 1 ms per multiple of 3)
+ * instead of piling events up in memory.
+ */
+        ExecutorService consumerThread = Executors.newSingleThreadExecutor();
+        SubmissionPublisher<Integer> feed = new SubmissionPublisher<>(ForkJoinPool.commonPool(), 8);
+
+        CompletableFuture<Long> slowCount = FlowPipeline.from(feed)
+                .async(consumerThread, 16)
+                .filter(n -> n % 3 == 0)
+                .peek(n -> sleep(1))
+                .count();
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < 300; i++) {
+            feed.submit(i);
+        }
+        long t1 = System.nanoTime();
+        feed.close();
+        System.out.println("multiples of 3: " + slowCount.join());
+        long t2 = System.nanoTime();
+        System.out.println(String.format("publishing 300 events took: %d ms, consuming them: %d ms",
+                TimeUnit.NANOSECONDS.toMillis(t1 - t0), TimeUnit.NANOSECONDS.toMillis(t2 - t0)));
+        consumerThread.shutdown();
+        System.out.println(separator);
+
+/**
+ * And back to a Stream: the bridge pulls from the pipeline through a
+ * bounded buffer, so Stream code can consume a push source.
+ */
+        List<String> sorted = strings
+                .filter((s) -> s.startsWith("b"))
+                .async()
+                .toStream(4)
+                .sorted()
+                .collect(Collectors.toList());
+
+        System.out.println(sorted);
+        System.out.println(separator);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package reactive;
+
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * The edges of a FlowPipeline: a Publisher that pulls from a
+ * Spliterator only as far as it has been asked to, a Subscriber that
+ * feeds a Collector into a CompletableFuture, and a Spliterator that
+ * turns a Publisher back into a blocking, bounded pull source for
+ * java.util.stream.
+ */
+final class Bridges {
+
+    private Bridges() {
+    }
+
+    static final Flow.Subscription EMPTY_SUBSCRIPTION = new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    /**
+     * Publishes the elements of a Spliterator. Each subscriber asks
+     * the supplier for its own Spliterator, and elements are only
+     * advanced while there is outstanding demand. onClose runs once per
+     * subscription, when it completes, fails or is cancelled, so a
+     * Stream source is closed the way a terminal operation would.
+     */
+    static final class SpliteratorPublisher<T> implements Flow.Publisher<T> {
+        final Supplier<? extends Spliterator<T>> supplier;
+        final Runnable onClose;
+
+        SpliteratorPublisher(Supplier<? extends Spliterator<T>> supplier, Runnable onClose) {
+            this.supplier = supplier;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            Spliterator<T> spliterator;
+            try {
+                spliterator = supplier.get();
+            } catch (Throwable e) {
+                subscriber.onSubscribe(EMPTY_SUBSCRIPTION);
+                subscriber.onError(e);
+                return;
+            }
+            subscriber.onSubscribe(new SpliteratorSubscription<>(subscriber, spliterator, onClose));
+        }
+    }
+
+    static final class SpliteratorSubscription<T> implements Flow.Subscription, Consumer<T> {
+        final Flow.Subscriber<? super T> downstream;
+        final Spliterator<T> spliterator;
+        final AtomicLong requested = new AtomicLong();
+        final AtomicBoolean closed = new AtomicBoolean();
+        final Runnable onClose;
+        volatile boolean cancelled;
+
+        SpliteratorSubscription(Flow.Subscriber<? super T> downstream, Spliterator<T> spliterator,
+                                Runnable onClose) {
+            this.downstream = downstream;
+            this.spliterator = spliterator;
+            this.onClose = onClose;
+        }
+
+        /**
+         * Thrown out of tryAdvance, so it takes the same cancel and
+         * onError path as a failing source.
+         */
+        @Override
+        public void accept(T item) {
+            downstream.onNext(Objects.requireNonNull(item,
+                    "source produced a null element (Reactive Streams §2.13)"));
+        }
+
+        /**
+         * Runs onClose the first time only, and returns what it threw
+         * so a terminal signal can report it.
+         */
+        private Throwable close() {
+            if (!closed.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                onClose.run();
+                return null;
+            } catch (Throwable e) {
+                return e;
+            }
+        }
+
+        private void fail(Throwable error) {
+            Throwable closeError = close();
+            if (closeError != null && closeError != error) {
+                error.addSuppressed(closeError);
+            }
+            downstream.onError(error);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (!cancelled) {
+                    cancelled = true;
+                    fail(Stages.nonPositiveRequest(n));
+                }
+                return;
+            }
+            // Only the caller that moves demand off zero emits; re-entrant
+            // requests from inside onNext just top up the counter.
+            if (Stages.addDemand(requested, n) != 0L) {
+                return;
+            }
+            long e = 0L;
+            for (;;) {
+                long r = requested.get();
+                while (e != r) {
+                    if (cancelled) {
+                        return;
+                    }
+                    boolean advanced;
+                    try {
+                        advanced = spliterator.tryAdvance(this);
+                    } catch (Throwable ex) {
+                        cancelled = true;
+                        fail(ex);
+                        return;
+                    }
+                    if (!advanced) {
+                        if (!cancelled) {
+                            cancelled = true;
+                            Throwable closeError = close();
+                            if (closeError != null) {
+                                downstream.onError(closeError);
+                            } else {
+                                downstream.onComplete();
+                            }
+                        }
+                        return;
+                    }
+                    e++;
+                }
+                r = requested.get();
+                if (e == r) {
+                    if (r == Long.MAX_VALUE) {
+                        continue;
+                    }
+                    r = requested.addAndGet(-e);
+                    if (r == 0L) {
+                        return;
+                    }
+                    e = 0L;
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            close();
+        }
+    }
+
+    /**
+     * Runs a Collector over everything the publisher emits. Collecting
+     * keeps every element anyway, so it asks for unbounded demand;
+     * backpressure still applies at any async stage upstream of it.
+     * Cancelling the returned future cancels the subscription.
+     */
+    static final class CollectorSubscriber<T, A, R> implements Flow.Subscriber<T> {
+        final BiConsumer<A, ? super T> accumulator;
+        final Collector<? super T, A, R> collector;
+        final CompletableFuture<R> result = new CompletableFuture<>();
+        Flow.Subscription upstream;
+        A container;
+
+        CollectorSubscriber(Collector<? super T, A, R> collector) {
+            this.collector = collector;
+            this.accumulator = collector.accumulator();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            try {
+                container = collector.supplier().get();
+            } catch (Throwable e) {
+                subscription.cancel();
+                result.completeExceptionally(e);
+                return;
+            }
+            result.whenComplete((r, e) -> {
+                if (result.isCancelled()) {
+                    subscription.cancel();
+                }
+            });
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                accumulator.accept(container, item);
+            } catch (Throwable e) {
+                upstream.cancel();
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                result.complete(collector.finisher().apply(container));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Subscribes on the first tryAdvance and then blocks for elements.
+     * Demand is issued in batches so that at most bufferSize elements
+     * are ever sitting in the queue, whatever the publisher's speed.
+     * Terminal signals are queued as marker objects behind the data.
+     */
+    static final class PublisherSpliterator<T> implements Spliterator<T>, Flow.Subscriber<T> {
+        private static final Object COMPLETE = new Object();
+
+        private static final class ErrorSignal {
+            final Throwable error;
+
+            ErrorSignal(Throwable error) {
+                this.error = error;
+            }
+        }
+
+        final Flow.Publisher<T> source;
+        final int bufferSize;
+        final int replenish;
+        final BlockingQueue<Object> queue;
+        volatile Flow.Subscription upstream;
+        boolean subscribed;
+        boolean finished;
+        int consumed;
+
+        PublisherSpliterator(Flow.Publisher<T> source, int bufferSize) {
+            this.source = source;
+            this.bufferSize = bufferSize;
+            this.replenish = Math.max(1, bufferSize - (bufferSize >> 2));
+            this.queue = new ArrayBlockingQueue<>(bufferSize + 1);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            subscription.request(bufferSize);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (item == null) {
+                upstream.cancel();
+                queue.offer(new ErrorSignal(new NullPointerException(
+                        "publisher produced a null element (Reactive Streams §2.13)")));
+                return;
+            }
+            if (!queue.offer(item)) {
+                upstream.cancel();
+                queue.clear();
+                queue.offer(new ErrorSignal(new IllegalStateException(
+                        "upstream ignored backpressure: buffer of " + bufferSize + " elements is full")));
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            queue.offer(new ErrorSignal(throwable));
+        }
+
+        @Override
+        public void onComplete() {
+            queue.offer(COMPLETE);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (finished) {
+                return false;
+            }
+            if (!subscribed) {
+                subscribed = true;
+                source.subscribe(this);
+            }
+            Object signal;
+            try {
+                signal = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                finished = true;
+                cancel();
+                throw new CompletionException(e);
+            }
+            if (signal == COMPLETE) {
+                finished = true;
+                return false;
+            }
+            if (signal instanceof ErrorSignal) {
+                finished = true;
+                Throwable error = ((ErrorSignal) signal).error;
+                if (error instanceof RuntimeException) {
+                    throw (RuntimeException) error;
+                }
+                if (error instanceof Error) {
+                    throw (Error) error;
+                }
+                throw new CompletionException(error);
+            }
+            if (++consumed == replenish) {
+                consumed = 0;
+                upstream.request(replenish);
+            }
+            action.accept((T) signal);
+            return true;
+        }
+
+        void cancel() {
+            Flow.Subscription s = upstream;
+            if (s != null) {
+                s.cancel();
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package reactive;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A java.util.stream.Stream pulls its elements: the terminal operation
+ * asks the source for the next element until the source runs dry. That
+ * works for collections but not for a live feed that never ends, or a
+ * consumer that cannot keep up with its producer.
+ *
+ * A FlowPipeline is the push-based counterpart built on
+ * java.util.concurrent.Flow. The source pushes elements downstream, but
+ * only as many as the consumer has asked for with request(n); this
+ * demand signal is the backpressure. It offers the same vocabulary as
+ * Stream (filter, map, flatMap, distinct, limit, skip, reduce and
+ * groupBy) and can be built from a Stream, a Spliterator, an Iterable
+ * or any Flow.Publisher, and turned back into a Stream.
+ *
+ * Stages run on the thread that delivers the element unless an async()
+ * boundary is inserted, which hands elements to another executor
+ * through a bounded buffer. A pipeline is only a description: every
+ * subscribe creates a fresh chain of stages, so unlike a Stream it can
+ * be run more than once (as long as its source can).
+ */
+public final class FlowPipeline<T> implements Flow.Publisher<T> {
+
+    private final Flow.Publisher<T> source;
+
+    private FlowPipeline(Flow.Publisher<T> source) {
+        this.source = source;
+    }
+
+    public static <T> FlowPipeline<T> from(Flow.Publisher<T> publisher) {
+        Objects.requireNonNull(publisher);
+        if (publisher instanceof FlowPipeline) {
+            return (FlowPipeline<T>) publisher;
+        }
+        return new FlowPipeline<>(publisher);
+    }
+
+    /**
+     * Each subscriber iterates the Iterable afresh.
+     */
+    public static <T> FlowPipeline<T> fromIterable(Iterable<T> iterable) {
+        Objects.requireNonNull(iterable);
+        return new FlowPipeline<>(new Bridges.SpliteratorPublisher<>(iterable::spliterator, () -> { }));
+    }
+
+    /**
+     * A Spliterator can only be traversed once, so the resulting
+     * pipeline accepts a single subscriber; later ones receive an
+     * IllegalStateException.
+     */
+    public static <T> FlowPipeline<T> fromSpliterator(Spliterator<T> spliterator) {
+        Objects.requireNonNull(spliterator);
+        return once(() -> spliterator, () -> { });
+    }
+
+    /**
+     * Like a Stream itself, the resulting pipeline can be subscribed
+     * to once. The Stream is not consumed until then, and it is closed
+     * (running its onClose handlers) when the subscription completes,
+     * fails or is cancelled, e.g. by limit().
+     */
+    public static <T> FlowPipeline<T> fromStream(Stream<T> stream) {
+        Objects.requireNonNull(stream);
+        return once(stream::spliterator, stream::close);
+    }
+
+    private static <T> FlowPipeline<T> once(Supplier<Spliterator<T>> spliterator, Runnable onClose) {
+        AtomicBoolean used = new AtomicBoolean();
+        return new FlowPipeline<>(new Bridges.SpliteratorPublisher<>(() -> {
+            if (!used.compareAndSet(false, true)) {
+                throw new IllegalStateException("source has already been subscribed to");
+            }
+            return spliterator.get();
+        }, onClose));
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber);
+        source.subscribe(subscriber);
+    }
+
+    /*
+     * Intermediate operations
+     */
+
+    public FlowPipeline<T> filter(Predicate<? super T> predicate) {
+        Objects.requireNonNull(predicate);
+        return new FlowPipeline<>(s -> source.subscribe(new Stages.FilterStage<>(s, predicate)));
+    }
+
+    public <R> FlowPipeline<R> map(Function<? super T, ? extends R> mapper) {
+        Objects.requireNonNull(mapper);
+        return new FlowPipeline<>(s -> source.subscribe(new Stages.MapStage<T, R>(s, mapper)));
+    }
+
+    public <R> FlowPipeline<R> flatMap(Function<? super T, ? extends Stream<? extends R>> mapper) {
+        Objects.requireNonNull(mapper);
+        return new FlowPipeline<>(s -> source.subscribe(new Stages.FlatMapStage<T, R>(s, mapper)));
+    }
+
+    /**
+     * Keeps a set of every distinct element seen so far, so memory
+     * grows with the number of distinct values, not with the length of
+     * the feed. Each subscriber gets its own set.
+     */
+    public FlowPipeline<T> distinct() {
+        return new FlowPipeline<>(s -> {
+            HashSet<T> seen = new HashSet<>();
+            source.subscribe(new Stages.FilterStage<>(s, seen::add));
+        });
+    }
+
+    public FlowPipeline<T> limit(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException(Long.toString(maxSize));
+        }
+        if (maxSize == 0) {
+            return new FlowPipeline<>(s -> {
+                s.onSubscribe(Bridges.EMPTY_SUBSCRIPTION);
+                s.onComplete();
+            });
+        }
+        return new FlowPipeline<>(s -> source.subscribe(new Stages.LimitStage<>(s, maxSize)));
+    }
+
+    public FlowPipeline<T> skip(long n) {
+        if (n < 0) {
+            throw new IllegalArgumentException(Long.toString(n));
+        }
+        return new FlowPipeline<>(s -> source.subscribe(new Stages.SkipStage<>(s, n)));
+    }
+
+    public FlowPipeline<T> peek(Consumer<? super T> action) {
+        Objects.requireNonNull(action);
+        return map(t -> {
+            action.accept(t);
+            return t;
+        });
+    }
+
+    /**
+     * Inserts an asynchronous boundary: stages downstream of this point
+     * run on the given executor, decoupled from the producer by a
+     * buffer of at most bufferSize elements.
+     */
+    public FlowPipeline<T> async(Executor executor, int bufferSize) {
+        Objects.requireNonNull(executor);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive, was " + bufferSize);
+        }
+        return new FlowPipeline<>(s -> source.subscribe(new Stages.AsyncStage<>(s, executor, bufferSize)));
+    }
+
+    public FlowPipeline<T> async(Executor executor) {
+        return async(executor, Flow.defaultBufferSize());
+    }
+
+    public FlowPipeline<T> async() {
+        return async(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /*
+     * Terminal operations. They subscribe immediately and complete the
+     * returned future when the source completes or fails.
+     */
+
+    public <R, A> CompletableFuture<R> collect(Collector<? super T, A, R> collector) {
+        Objects.requireNonNull(collector);
+        Bridges.CollectorSubscriber<T, A, R> subscriber = new Bridges.CollectorSubscriber<>(collector);
+        subscribe(subscriber);
+        return subscriber.result;
+    }
+
+    public CompletableFuture<Void> forEach(Consumer<? super T> action) {
+        Objects.requireNonNull(action);
+        return collect(Collector.of(() -> null, (a, t) -> action.accept(t), (a, b) -> a));
+    }
+
+    public CompletableFuture<Optional<T>> reduce(BinaryOperator<T> accumulator) {
+        return collect(Collectors.reducing(accumulator));
+    }
+
+    public CompletableFuture<T> reduce(T identity, BinaryOperator<T> accumulator) {
+        return collect(Collectors.reducing(identity, accumulator));
+    }
+
+    public <K> CompletableFuture<Map<K, List<T>>> groupBy(Function<? super T, ? extends K> classifier) {
+        return collect(Collectors.groupingBy(classifier));
+    }
+
+    public CompletableFuture<Long> count() {
+        return collect(Collectors.counting());
+    }
+
+    /**
+     * Bridges back to a sequential Stream. The Stream subscribes when
+     * its terminal operation starts pulling, blocks while waiting for
+     * elements, and never holds more than bufferSize of them. Closing
+     * the Stream cancels the subscription.
+     */
+    public Stream<T> toStream(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive, was " + bufferSize);
+        }
+        Bridges.PublisherSpliterator<T> spliterator = new Bridges.PublisherSpliterator<>(source, bufferSize);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::cancel);
+    }
+
+    public Stream<T> toStream() {
+        return toStream(Flow.defaultBufferSize());
+    }
+}
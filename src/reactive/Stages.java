@@ -0,0 +1,570 @@
+package reactive;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * The intermediate stages behind FlowPipeline. Every stage is a
+ * Subscriber towards its upstream and a Subscription towards its
+ * downstream, so demand travels up the chain through request(n) and
+ * elements travel down through onNext. A new set of stages is created
+ * for every subscribe, which is why a FlowPipeline (unlike a Stream)
+ * can be consumed more than once.
+ *
+ * The synchronous stages never hold more than one pending element.
+ * Only the async stage buffers, and its queue is bounded by the
+ * amount of demand it has signalled upstream.
+ */
+final class Stages {
+
+    private Stages() {
+    }
+
+    /**
+     * Adds n to the outstanding demand, capping at Long.MAX_VALUE
+     * (which means "unbounded"), and returns the previous value.
+     */
+    static long addDemand(AtomicLong requested, long n) {
+        for (;;) {
+            long r = requested.get();
+            if (r == Long.MAX_VALUE) {
+                return r;
+            }
+            long u = r + n;
+            if (u < 0L) {
+                u = Long.MAX_VALUE;
+            }
+            if (requested.compareAndSet(r, u)) {
+                return r;
+            }
+        }
+    }
+
+    static IllegalArgumentException nonPositiveRequest(long n) {
+        return new IllegalArgumentException("request must be positive (Reactive Streams §3.9), was " + n);
+    }
+
+    /**
+     * Pass-through plumbing shared by the synchronous stages: demand
+     * and cancellation go straight upstream, terminal signals go
+     * straight downstream (at most once).
+     */
+    abstract static class Stage<T, R> implements Flow.Subscriber<T>, Flow.Subscription {
+        final Flow.Subscriber<? super R> downstream;
+        volatile Flow.Subscription upstream;
+        boolean done;
+
+        Stage(Flow.Subscriber<? super R> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            upstream.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            upstream.cancel();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (done) {
+                return;
+            }
+            done = true;
+            downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            done = true;
+            downstream.onComplete();
+        }
+
+        /**
+         * A user function threw: stop the upstream and report the
+         * failure downstream instead of letting it escape into the
+         * publisher's thread.
+         */
+        void fail(Throwable throwable) {
+            upstream.cancel();
+            onError(throwable);
+        }
+    }
+
+    /**
+     * filter(): a dropped element was paid for with one unit of
+     * downstream demand, so it is replaced by requesting one more.
+     */
+    static final class FilterStage<T> extends Stage<T, T> {
+        final Predicate<? super T> predicate;
+
+        FilterStage(Flow.Subscriber<? super T> downstream, Predicate<? super T> predicate) {
+            super(downstream);
+            this.predicate = predicate;
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (done) {
+                return;
+            }
+            boolean pass;
+            try {
+                pass = predicate.test(item);
+            } catch (Throwable e) {
+                fail(e);
+                return;
+            }
+            if (pass) {
+                downstream.onNext(item);
+            } else {
+                upstream.request(1);
+            }
+        }
+    }
+
+    static final class MapStage<T, R> extends Stage<T, R> {
+        final Function<? super T, ? extends R> mapper;
+
+        MapStage(Flow.Subscriber<? super R> downstream, Function<? super T, ? extends R> mapper) {
+            super(downstream);
+            this.mapper = mapper;
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (done) {
+                return;
+            }
+            R mapped;
+            try {
+                mapped = Objects.requireNonNull(mapper.apply(item),
+                        "map produced a null element (Reactive Streams §2.13)");
+            } catch (Throwable e) {
+                fail(e);
+                return;
+            }
+            downstream.onNext(mapped);
+        }
+    }
+
+    /**
+     * skip(): swallows the first n elements, replacing each with a
+     * fresh request upstream, then becomes a plain pass-through.
+     */
+    static final class SkipStage<T> extends Stage<T, T> {
+        long remaining;
+
+        SkipStage(Flow.Subscriber<? super T> downstream, long n) {
+            super(downstream);
+            this.remaining = n;
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (done) {
+                return;
+            }
+            if (remaining > 0) {
+                remaining--;
+                upstream.request(1);
+                return;
+            }
+            downstream.onNext(item);
+        }
+    }
+
+    /**
+     * limit(): short-circuits by cancelling the upstream as soon as
+     * maxSize elements have gone through, which is what lets it
+     * terminate an unbounded feed. maxSize is at least 1 here:
+     * FlowPipeline.limit(0) never subscribes upstream at all.
+     */
+    static final class LimitStage<T> extends Stage<T, T> {
+        long remaining;
+
+        LimitStage(Flow.Subscriber<? super T> downstream, long maxSize) {
+            super(downstream);
+            this.remaining = maxSize;
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (done || remaining <= 0) {
+                return;
+            }
+            downstream.onNext(item);
+            if (--remaining == 0) {
+                upstream.cancel();
+                onComplete();
+            }
+        }
+    }
+
+    /**
+     * flatMap(): requests one upstream element at a time and drains
+     * its mapped Stream only as fast as downstream demand allows, so
+     * a single large inner Stream never gets buffered. Each mapped
+     * Stream is closed once its contents have been emitted, as with
+     * Stream.flatMap.
+     */
+    static final class FlatMapStage<T, R> extends Stage<T, R> {
+        final Function<? super T, ? extends Stream<? extends R>> mapper;
+        final AtomicLong requested = new AtomicLong();
+        final AtomicInteger wip = new AtomicInteger();
+
+        volatile Stream<? extends R> currentStream;
+        volatile Iterator<? extends R> current;
+        volatile boolean awaitingUpstream;
+        volatile boolean upstreamDone;
+        volatile boolean cancelled;
+        volatile Throwable badRequest;
+        Throwable error;
+
+        FlatMapStage(Flow.Subscriber<? super R> downstream,
+                     Function<? super T, ? extends Stream<? extends R>> mapper) {
+            super(downstream);
+            this.mapper = mapper;
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (upstreamDone) {
+                return;
+            }
+            try {
+                Stream<? extends R> inner = mapper.apply(item);
+                currentStream = inner;
+                current = inner.iterator();
+            } catch (Throwable e) {
+                upstream.cancel();
+                error = e;
+                upstreamDone = true;
+            }
+            awaitingUpstream = false;
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (upstreamDone) {
+                return;
+            }
+            error = throwable;
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // Reported by drain() straight away, whatever is left of
+                // the inner Stream and whether or not upstream is done.
+                badRequest = nonPositiveRequest(n);
+                upstream.cancel();
+                drain();
+                return;
+            }
+            addDemand(requested, n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            upstream.cancel();
+            drain();
+        }
+
+        void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                if (checkBadRequest()) {
+                    return;
+                }
+                long r = requested.get();
+                long e = 0L;
+                while (e != r && !cancelled && badRequest == null) {
+                    Iterator<? extends R> it = current;
+                    if (it == null) {
+                        break;
+                    }
+                    R value;
+                    try {
+                        if (!it.hasNext()) {
+                            closeCurrent();
+                            break;
+                        }
+                        value = Objects.requireNonNull(it.next(),
+                                "flatMap produced a null element (Reactive Streams §2.13)");
+                    } catch (Throwable ex) {
+                        upstream.cancel();
+                        closeCurrent();
+                        terminate(ex);
+                        return;
+                    }
+                    downstream.onNext(value);
+                    e++;
+                }
+                if (e != 0L && r != Long.MAX_VALUE) {
+                    requested.addAndGet(-e);
+                }
+                if (cancelled) {
+                    closeCurrent();
+                    return;
+                }
+                if (checkBadRequest()) {
+                    return;
+                }
+                if (current == null) {
+                    if (upstreamDone) {
+                        terminate(error);
+                        return;
+                    }
+                    if (!awaitingUpstream && requested.get() != 0L) {
+                        awaitingUpstream = true;
+                        upstream.request(1);
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private boolean checkBadRequest() {
+            Throwable bad = badRequest;
+            if (bad == null || cancelled) {
+                return false;
+            }
+            closeCurrent();
+            terminate(bad);
+            return true;
+        }
+
+        private void closeCurrent() {
+            Stream<? extends R> inner = currentStream;
+            current = null;
+            currentStream = null;
+            if (inner != null) {
+                inner.close();
+            }
+        }
+
+        private void terminate(Throwable throwable) {
+            cancelled = true;
+            if (throwable != null) {
+                downstream.onError(throwable);
+            } else {
+                downstream.onComplete();
+            }
+        }
+    }
+
+    /**
+     * The asynchronous stage boundary. Upstream signals are parked in
+     * a queue of bufferSize slots and handed downstream from a task on
+     * the given executor. The stage never has more than bufferSize
+     * elements requested from upstream, and only replenishes once
+     * downstream has taken three quarters of them, so a slow consumer
+     * stalls the producer instead of growing the queue.
+     */
+    static final class AsyncStage<T> extends Stage<T, T> implements Runnable {
+        final Executor executor;
+        final int bufferSize;
+        final int replenish;
+        final Queue<T> queue;
+        final AtomicLong requested = new AtomicLong();
+        final AtomicInteger wip = new AtomicInteger();
+
+        volatile boolean upstreamDone;
+        volatile boolean cancelled;
+        volatile Throwable badRequest;
+        Throwable error;
+        int consumed;
+
+        AsyncStage(Flow.Subscriber<? super T> downstream, Executor executor, int bufferSize) {
+            super(downstream);
+            this.executor = executor;
+            this.bufferSize = bufferSize;
+            this.replenish = Math.max(1, bufferSize - (bufferSize >> 2));
+            this.queue = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            downstream.onSubscribe(this);
+            subscription.request(bufferSize);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (upstreamDone) {
+                return;
+            }
+            if (!queue.offer(item)) {
+                upstream.cancel();
+                onError(new IllegalStateException(
+                        "upstream ignored backpressure: buffer of " + bufferSize + " elements is full"));
+                return;
+            }
+            schedule();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (upstreamDone) {
+                return;
+            }
+            error = throwable;
+            upstreamDone = true;
+            schedule();
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // Buffered elements must not hold the error back: the
+                // subscriber may have no demand left to drain them with.
+                // If no drain is running, report it on this thread right
+                // away; otherwise the running drain reports it next.
+                badRequest = nonPositiveRequest(n);
+                upstream.cancel();
+                if (wip.getAndIncrement() == 0) {
+                    checkTerminated(false, false);
+                }
+                return;
+            }
+            addDemand(requested, n);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            upstream.cancel();
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                cancelled = true;
+                upstream.cancel();
+                queue.clear();
+                downstream.onError(e);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            for (;;) {
+                long r = requested.get();
+                long e = 0L;
+                while (e != r) {
+                    boolean d = upstreamDone;
+                    T value = queue.poll();
+                    boolean empty = value == null;
+                    if (checkTerminated(d, empty)) {
+                        return;
+                    }
+                    if (empty) {
+                        break;
+                    }
+                    downstream.onNext(value);
+                    e++;
+                    if (++consumed == replenish) {
+                        consumed = 0;
+                        upstream.request(replenish);
+                    }
+                }
+                if (e == r && checkTerminated(upstreamDone, queue.isEmpty())) {
+                    return;
+                }
+                if (e != 0L && r != Long.MAX_VALUE) {
+                    requested.addAndGet(-e);
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private boolean checkTerminated(boolean d, boolean empty) {
+            if (cancelled) {
+                queue.clear();
+                return true;
+            }
+            Throwable bad = badRequest;
+            if (bad != null) {
+                cancelled = true;
+                queue.clear();
+                downstream.onError(bad);
+                return true;
+            }
+            if (d && empty) {
+                cancelled = true;
+                if (error != null) {
+                    downstream.onError(error);
+                } else {
+                    downstream.onComplete();
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package sort;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * How ExternalSort moves elements between the heap and its run files.
+ * write/read define the on-disk encoding; heapSize is the (estimated)
+ * number of bytes one element occupies on the heap, and is what the
+ * memory budget is measured in.
+ */
+public interface Codec<T> {
+
+    void write(DataOutput out, T value) throws IOException;
+
+    T read(DataInput in) throws IOException;
+
+    long heapSize(T value);
+
+    /**
+     * Strings as a varint byte length followed by their UTF-8 bytes, so
+     * a 36 character UUID takes 37 bytes on disk.
+     */
+    static Codec<String> strings() {
+        return Codecs.STRING;
+    }
+
+    /**
+     * Longs as zig-zag varints: small magnitudes take one or two bytes.
+     */
+    static Codec<Long> longs() {
+        return Codecs.LONG;
+    }
+}
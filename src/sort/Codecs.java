@@ -0,0 +1,81 @@
+package sort;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+final class Codecs {
+
+    private Codecs() {
+    }
+
+    static final Codec<String> STRING = new Codec<String>() {
+        @Override
+        public void write(DataOutput out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(out, bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            byte[] bytes = new byte[(int) readVarLong(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Object header and fields plus the backing array, assuming two
+         * bytes per char. Compact strings make this an overestimate for
+         * Latin-1 text, which errs on the safe side.
+         */
+        @Override
+        public long heapSize(String value) {
+            return 40L + 2L * value.length();
+        }
+    };
+
+    static final Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public void write(DataOutput out, Long value) throws IOException {
+            long v = value;
+            writeVarLong(out, (v << 1) ^ (v >> 63));
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            long v = readVarLong(in);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        @Override
+        public long heapSize(Long value) {
+            return 16L;
+        }
+    };
+
+    /**
+     * Seven bits per byte, low bits first, high bit set on every byte
+     * but the last.
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0L) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
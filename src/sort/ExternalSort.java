@@ -0,0 +1,354 @@
+package sort;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Stream.sorted() has to hold every element on the heap before it can
+ * emit the first one. ExternalSort sorts inputs that are larger than
+ * the heap by holding at most a memory budget's worth of elements:
+ *
+ * 1. The input is cut into runs of half the budget. Each run is sorted
+ *    with Arrays.parallelSort and written to a temp file through a
+ *    Codec, while the next run is being filled, so at most two runs
+ *    are on the heap at once.
+ * 2. The run files are merged k ways with a PriorityQueue holding the
+ *    head element of each run. With more than MAX_FAN_IN runs,
+ *    intermediate passes merge them into fewer, longer runs first.
+ * 3. The last merge is returned as a lazy Stream. Closing the Stream
+ *    (or reading it to the end) deletes the run files.
+ *
+ * If the whole input fits into one run, nothing touches the disk.
+ * Runs are merged in input order and ties go to the earlier run, so
+ * like Stream.sorted() the sort is stable.
+ */
+public final class ExternalSort {
+
+    static final int MAX_FAN_IN = 64;
+    private static final int MAX_IO_BUFFER = 64 * 1024;
+    private static final int MIN_IO_BUFFER = 4 * 1024;
+    /** The array slot that refers to each buffered element. */
+    private static final long REFERENCE_SIZE = 8L;
+
+    private ExternalSort() {
+    }
+
+    public static Stream<String> sorted(Stream<String> input, long memoryBudget) {
+        return sorted(input, Comparator.naturalOrder(), Codec.strings(), memoryBudget);
+    }
+
+    public static <T> Stream<T> sorted(Stream<T> input, Comparator<? super T> comparator,
+                                       Codec<T> codec, long memoryBudget) {
+        return sorted(input.spliterator(), comparator, codec, memoryBudget,
+                Paths.get(System.getProperty("java.io.tmpdir")))
+                .onClose(input::close);
+    }
+
+    /**
+     * Consumes the input eagerly (that is where the runs are built) and
+     * returns a Stream that merges the runs lazily. Any IOException is
+     * rethrown as an UncheckedIOException.
+     */
+    public static <T> Stream<T> sorted(Spliterator<T> input, Comparator<? super T> comparator,
+                                       Codec<T> codec, long memoryBudget, Path tempDir) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive, was " + memoryBudget);
+        }
+        long runBudget = memoryBudget / 2;
+        int ioBuffer = (int) Math.max(MIN_IO_BUFFER, Math.min(MAX_IO_BUFFER, memoryBudget / (MAX_FAN_IN + 1)));
+
+        List<Run> runs = new ArrayList<>();
+        CompletableFuture<Void> spilling = CompletableFuture.completedFuture(null);
+        // Spilling blocks on file writes, so it gets its own thread rather
+        // than a common pool worker that parallelSort needs for the next run.
+        ExecutorService spiller = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "external-sort-spill");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<T> buffer = new ArrayList<>();
+            long used = 0L;
+            Iterator<T> it = Spliterators.iterator(input);
+            while (it.hasNext()) {
+                T value = it.next();
+                buffer.add(value);
+                used += codec.heapSize(value) + REFERENCE_SIZE;
+                if (used >= runBudget) {
+                    T[] run = toSortedArray(buffer, comparator);
+                    buffer = new ArrayList<>();
+                    used = 0L;
+                    // The previous run has to be on disk before this one
+                    // is handed over, or three runs would be live.
+                    spilling.join();
+                    spilling = CompletableFuture.runAsync(() ->
+                            runs.add(writeRun(Arrays.asList(run).iterator(), codec, tempDir, ioBuffer)), spiller);
+                }
+            }
+            spilling.join();
+
+            if (runs.isEmpty()) {
+                return Arrays.stream(toSortedArray(buffer, comparator));
+            }
+            if (!buffer.isEmpty()) {
+                runs.add(writeRun(Arrays.asList(toSortedArray(buffer, comparator)).iterator(),
+                        codec, tempDir, ioBuffer));
+            }
+            buffer = null;
+
+            List<Run> merged = mergePasses(runs, comparator, codec, tempDir, ioBuffer);
+            RunMerger<T> merger = new RunMerger<>(merged, comparator, codec, ioBuffer);
+            long size = merged.stream().mapToLong(r -> r.count).sum();
+            return StreamSupport.stream(Spliterators.spliterator(merger, size, Spliterator.ORDERED), false)
+                    .onClose(merger::close);
+        } catch (CompletionException e) {
+            spilling.exceptionally(t -> null).join();
+            deleteAll(runs);
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } catch (RuntimeException | Error e) {
+            spilling.exceptionally(t -> null).join();
+            deleteAll(runs);
+            throw e;
+        } finally {
+            spiller.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T[] toSortedArray(List<T> buffer, Comparator<? super T> comparator) {
+        T[] run = (T[]) buffer.toArray();
+        Arrays.parallelSort(run, comparator);
+        return run;
+    }
+
+    /**
+     * Merges groups of MAX_FAN_IN runs into single runs until few
+     * enough remain to be merged with one reader per run.
+     */
+    private static <T> List<Run> mergePasses(List<Run> runs, Comparator<? super T> comparator,
+                                             Codec<T> codec, Path tempDir, int ioBuffer) {
+        while (runs.size() > MAX_FAN_IN) {
+            List<Run> next = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                List<Run> group = runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+                try (RunMerger<T> merger = new RunMerger<>(new ArrayList<>(group), comparator, codec, ioBuffer)) {
+                    next.add(writeRun(merger, codec, tempDir, ioBuffer));
+                } catch (RuntimeException e) {
+                    deleteAll(runs.subList(i, runs.size()));
+                    deleteAll(next);
+                    throw e;
+                }
+            }
+            runs = next;
+        }
+        return runs;
+    }
+
+    private static <T> Run writeRun(Iterator<T> sorted, Codec<T> codec, Path tempDir, int ioBuffer) {
+        Path file = null;
+        try {
+            file = Files.createTempFile(tempDir, "sort-run-", ".bin");
+            long count = 0L;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file), ioBuffer))) {
+                while (sorted.hasNext()) {
+                    codec.write(out, sorted.next());
+                    count++;
+                }
+            }
+            return new Run(file, count);
+        } catch (IOException e) {
+            if (file != null) {
+                new Run(file, 0L).delete();
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteAll(List<Run> runs) {
+        for (Run run : runs) {
+            run.delete();
+        }
+    }
+
+    static final class Run {
+        final Path file;
+        final long count;
+
+        Run(Path file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // a temp file, at worst it outlives us
+            }
+        }
+    }
+
+    /**
+     * Reads one run sequentially, keeping only its current head element
+     * and one I/O buffer on the heap.
+     */
+    static final class RunReader<T> implements Closeable {
+        final Run run;
+        final int index;
+        final DataInputStream in;
+        final Codec<T> codec;
+        long remaining;
+        T head;
+
+        RunReader(Run run, int index, Codec<T> codec, int ioBuffer) throws IOException {
+            this.run = run;
+            this.index = index;
+            this.codec = codec;
+            this.remaining = run.count;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.file), ioBuffer));
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0L) {
+                head = null;
+                return false;
+            }
+            head = codec.read(in);
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // read-only, nothing to lose
+            }
+            run.delete();
+        }
+    }
+
+    /**
+     * The k-way merge: the queue is ordered by each reader's head
+     * element, then by run index to keep the merge stable. Closes and
+     * deletes its runs once exhausted or when closed early.
+     */
+    static final class RunMerger<T> implements Iterator<T>, Closeable {
+        final PriorityQueue<RunReader<T>> heads;
+        final List<RunReader<T>> readers = new ArrayList<>();
+        final List<Run> runs;
+        boolean closed;
+
+        RunMerger(List<Run> runs, Comparator<? super T> comparator, Codec<T> codec, int ioBuffer) {
+            this.runs = runs;
+            Comparator<RunReader<T>> byHead = (a, b) -> comparator.compare(a.head, b.head);
+            this.heads = new PriorityQueue<>(Math.max(1, runs.size()),
+                    byHead.thenComparingInt(r -> r.index));
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    RunReader<T> reader = new RunReader<>(runs.get(i), i, codec, ioBuffer);
+                    readers.add(reader);
+                    if (reader.advance()) {
+                        heads.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (heads.isEmpty()) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            RunReader<T> reader = heads.poll();
+            if (reader == null) {
+                throw new NoSuchElementException();
+            }
+            T value = reader.head;
+            try {
+                if (reader.advance()) {
+                    heads.add(reader);
+                }
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+            return value;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            heads.clear();
+            for (RunReader<T> reader : readers) {
+                reader.close();
+            }
+            deleteAll(runs);
+        }
+    }
+
+    public static void main(String arg[]) {
+        int max = 1000000;
+        long budget = 16L * 1024 * 1024;
+
+        long t0 = System.nanoTime();
+
+        // The UUIDs are generated lazily, so they never all exist at once.
+        String[] previous = {""};
+        long[] count = {0L};
+        try (Stream<String> sorted = sorted(
+                Stream.generate(() -> UUID.randomUUID().toString()).limit(max), budget)) {
+            sorted.forEach(s -> {
+                if (s.compareTo(previous[0]) < 0) {
+                    throw new IllegalStateException("out of order: " + previous[0] + " > " + s);
+                }
+                previous[0] = s;
+                count[0]++;
+            });
+        }
+        System.out.println(count[0]);
+
+        long t1 = System.nanoTime();
+        long millis = TimeUnit.NANOSECONDS.toMillis(t1 - t0);
+        System.out.println(String.format("external sort within %d MB took: %d ms", budget >> 20, millis));
+    }
+}
@@ -0,0 +1,212 @@
+package stream;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import foreach.ForEachImpl;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Every lambda, boxed Integer and map node in a pipeline is a heap
+ * allocation, and allocation on a hot path is paid for again in GC.
+ * This check runs the pipelines of BasicOperations and
+ * foreach.ForEachImpl themselves (the methods their main methods call,
+ * with non-printing consumers) and measures how many bytes each one allocates per element, using
+ * the per-thread allocation counter of com.sun.management.ThreadMXBean.
+ * A pipeline that allocates more than its budget fails the run, so a
+ * change that adds boxing or a copy to one of them shows up here
+ * before it shows up in a GC log.
+ *
+ * Each pipeline is warmed up first so that the JIT has had the chance
+ * to scalar-replace what it can; what is measured is the steady state.
+ * Garbage collections seen during a measurement are reported next to
+ * it (they do not change the thread's allocation counter, but they
+ * show how much the allocation costs).
+ *
+ * The budgets leave about a quarter of headroom over what a 64-bit
+ * HotSpot with compressed oops measures today: the boxed pipelines
+ * pay for growing the result list and for every Integer above the
+ * small-value cache, employeesByNo for a map node and a new Long per
+ * employee plus the table resizes, distinctByKey for its map nodes. Walking a map should allocate nothing at all.
+ *
+ * Run it with: java stream.AllocationBudgets
+ * It exits with status 1 if any budget is exceeded. On a JVM that
+ * cannot count allocations, or whose object layout differs from that
+ * one, it prints a line starting with SKIPPED and exits with status 2,
+ * so that a skipped check is not mistaken for a passing one.
+ */
+public class AllocationBudgets {
+
+    static final int ELEMENTS = 10_000;
+    static final int WARMUP_ROUNDS = 200;
+    static final int MEASURED_ROUNDS = 50;
+    static final int SKIPPED = 2;
+
+    /** Keeps pipeline results reachable so the JIT cannot drop the work. */
+    static volatile Object sink;
+
+    static final class Case {
+        final String name;
+        final double budgetPerElement;
+        final Supplier<Object> pipeline;
+
+        Case(String name, double budgetPerElement, Supplier<Object> pipeline) {
+            this.name = name;
+            this.budgetPerElement = budgetPerElement;
+            this.pipeline = pipeline;
+        }
+    }
+
+    /**
+     * Counts the garbage collections that finish while a measurement
+     * is running, from the GC notifications of every collector.
+     */
+    static final class GcCounter implements NotificationListener {
+        final AtomicInteger collections = new AtomicInteger();
+
+        GcCounter() {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gc instanceof NotificationEmitter) {
+                    ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+                }
+            }
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                collections.incrementAndGet();
+            }
+        }
+    }
+
+    static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The budgets are byte counts, so they only hold for the object
+     * layout they were measured with. Without compressed oops (turned
+     * off explicitly, or by a heap of 32 GB or more) every reference
+     * and header grows, and the boxed pipelines would fail without any
+     * code change. Returns why the layout differs, or null if it does
+     * not.
+     */
+    static String objectLayoutMismatch() {
+        HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        if (hotspot == null) {
+            return "this is not a HotSpot JVM";
+        }
+        for (String flag : new String[]{"UseCompressedOops", "UseCompressedClassPointers"}) {
+            try {
+                if (!Boolean.parseBoolean(hotspot.getVMOption(flag).getValue())) {
+                    return flag + " is off";
+                }
+            } catch (IllegalArgumentException e) {
+                return flag + " is not known to this JVM";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bytes allocated by rounds runs of the pipeline, minus what the
+     * measuring itself costs.
+     */
+    static long measure(Supplier<Object> pipeline, int rounds, long overhead) {
+        long before = allocatedBytes();
+        for (int i = 0; i < rounds; i++) {
+            sink = pipeline.get();
+        }
+        long after = allocatedBytes();
+        return Math.max(0L, after - before - overhead);
+    }
+
+    public static void main(String arg[]) {
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            System.out.println("SKIPPED: thread allocation counters are not supported by this JVM");
+            System.exit(SKIPPED);
+        }
+        String layout = objectLayoutMismatch();
+        if (layout != null) {
+            System.out.println("SKIPPED: the budgets assume compressed oops and class pointers, but " + layout);
+            System.exit(SKIPPED);
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        List<Integer> numbers = IntStream.rangeClosed(1, ELEMENTS).boxed().collect(Collectors.toList());
+
+        List<String> strings = new ArrayList<>(ELEMENTS);
+        for (int i = 0; i < ELEMENTS; i++) {
+            strings.add((char) ('a' + i % 4) + "-" + i);
+        }
+
+        List<Supplier<Object>> employeePipelines = BasicOperations.employeePipelines(ELEMENTS);
+
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < ELEMENTS; i++) {
+            map.put(strings.get(i), i);
+        }
+
+        long[] total = new long[1];
+
+        List<Case> cases = new ArrayList<>();
+        cases.add(new Case("countStartingWith", 1.0, () ->
+                BasicOperations.countStartingWith(strings, "b")));
+        cases.add(new Case("evenNumbers", 10.0, () ->
+                BasicOperations.evenNumbers(numbers)));
+        cases.add(new Case("squaredEvenNumbers", 20.0, () ->
+                BasicOperations.squaredEvenNumbers(numbers)));
+        cases.add(new Case("employeesByNo", 86.0, employeePipelines.get(0)));
+        cases.add(new Case("distinctByNo", 24.0, employeePipelines.get(1)));
+        cases.add(new Case("ForEachImpl.walkMap", 1.0, () -> {
+            ForEachImpl.walkMap(map,
+                    e -> total[0] += e.getValue(),
+                    k -> total[0] += k.length(),
+                    v -> total[0] += v);
+            return total[0];
+        }));
+
+        GcCounter gcs = new GcCounter();
+        long overhead = measure(() -> null, MEASURED_ROUNDS, 0L);
+
+        int failures = 0;
+        System.out.println(String.format("%-48s %12s %10s %5s", "pipeline", "bytes/elem", "budget", "GCs"));
+        for (Case c : cases) {
+            measure(c.pipeline, WARMUP_ROUNDS, overhead);
+
+            int gcsBefore = gcs.collections.get();
+            long bytes = measure(c.pipeline, MEASURED_ROUNDS, overhead);
+            int collections = gcs.collections.get() - gcsBefore;
+
+            double perElement = (double) bytes / ((long) MEASURED_ROUNDS * ELEMENTS);
+            boolean ok = perElement <= c.budgetPerElement;
+            if (!ok) {
+                failures++;
+            }
+            System.out.println(String.format("%-48s %12.2f %10.2f %5d %s",
+                    c.name, perElement, c.budgetPerElement, collections, ok ? "" : "OVER BUDGET"));
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " pipeline(s) exceeded their allocation budget");
+            System.exit(1);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -160,11 +161,7 @@ public class BasicOperations {
  * in the stream as a long.
  */
 
-        long startsWithB =
-                stringCollection
-                        .stream()
-                        .filter((s) -> s.startsWith("b"))
-                        .count();
+        long startsWithB = countStartingWith(stringCollection, "b");
 
         System.out.println(startsWithB);
 
@@ -227,9 +224,7 @@ public class BasicOperations {
          */
         List<Integer> list = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
 
-        List<Integer> evenNumbers = list.stream()
-                .filter(n -> n % 2 == 0)
-                .collect(Collectors.toList());
+        List<Integer> evenNumbers = evenNumbers(list);
 
         System.out.println(evenNumbers);
 
@@ -238,10 +233,7 @@ public class BasicOperations {
         /**
          * After filter map can be used on top of it.
          */
-        List<Integer> squaredEvenNumbers = list.stream()
-                .filter(n -> n % 2 == 0)
-                .map(n -> n * n)
-                .collect(Collectors.toList());
+        List<Integer> squaredEvenNumbers = squaredEvenNumbers(list);
 
         System.out.println(squaredEvenNumbers);
 
@@ -323,9 +315,7 @@ public class BasicOperations {
         Collection<Employee> list5 = Arrays.asList(lokesh,brian,alex,lokesh,brian,lokesh);
 
         // Get distinct objects by key
-        List<Employee> distinctElements2 = list5.stream()
-                .filter( distinctByKey(p -> p.no) )
-                .collect( Collectors.toList() );
+        List<Employee> distinctElements2 = distinctByNo(list5);
 
         // Let's verify distinct elements
         System.out.println( distinctElements2 );
@@ -394,9 +384,7 @@ public class BasicOperations {
                 new Employee(5, "C", 500),
                 new Employee(6, "C", 600)));
 
-        Map<Long, Employee> employeesMap = employeeList.stream()
-                .collect( Collectors.toMap(Employee::getNo,
-                        Function.identity()));
+        Map<Long, Employee> employeesMap = employeesByNo(employeeList);
 
         System.out.println(employeesMap);
         System.out.println(separator);
@@ -428,4 +416,60 @@ public class BasicOperations {
         return t -> map.putIfAbsent(keyExtractor.apply(t), Boolean.TRUE) == null;
     }
 
+    /*
+     * The pipelines below are used by main and measured, as they are,
+     * by AllocationBudgets.
+     */
+
+    static long countStartingWith(Collection<String> strings, String prefix) {
+        return strings
+                .stream()
+                .filter((s) -> s.startsWith(prefix))
+                .count();
+    }
+
+    static List<Integer> evenNumbers(List<Integer> list) {
+        return list.stream()
+                .filter(n -> n % 2 == 0)
+                .collect(Collectors.toList());
+    }
+
+    static List<Integer> squaredEvenNumbers(List<Integer> list) {
+        return list.stream()
+                .filter(n -> n % 2 == 0)
+                .map(n -> n * n)
+                .collect(Collectors.toList());
+    }
+
+    static List<Employee> distinctByNo(Collection<Employee> employees) {
+        return employees.stream()
+                .filter( distinctByKey(p -> p.no) )
+                .collect( Collectors.toList() );
+    }
+
+    static Map<Long, Employee> employeesByNo(List<Employee> employees) {
+        return employees.stream()
+                .collect( Collectors.toMap(Employee::getNo,
+                        Function.identity()));
+    }
+
+    /**
+     * employeesByNo and distinctByNo over count generated employees, for
+     * AllocationBudgets, which should not name Employee from another
+     * file. Numbers are unique for the first (toMap rejects duplicate
+     * keys) and repeat every count / 10 employees for the second.
+     */
+    static List<Supplier<Object>> employeePipelines(int count)
+    {
+        List<Employee> unique = new ArrayList<>(count);
+        List<Employee> repeated = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            unique.add(new Employee(i, "E" + i, 100 * (i % 7)));
+            repeated.add(new Employee(i % Math.max(1, count / 10), "E" + i, 100 * (i % 7)));
+        }
+        return Arrays.asList(
+                () -> employeesByNo(unique),
+                () -> distinctByNo(repeated));
+    }
+
 }